@@ -0,0 +1,76 @@
+package nlp.lm;
+import java.util.*;
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for handing data files to the models. The data files are not all in one encoding (test1 is ASCII,
+ * the sentences_* files are UTF-16), while LambdaLMModel always trains on UTF-16 and DiscountLMModel,
+ * readVocab() and getPerplexity() read with the platform charset. So callers decode a file with readLines()
+ * and give each model a copy written by writeTemp() in the encoding it expects.
+ */
+public class DataFiles {
+
+    /**
+     * Exits unless the platform charset is UTF-8, so that files written with writeTemp(lines, "UTF-8") are
+     * read back unchanged by the models.
+     */
+    public static void requireUtf8Platform() {
+        if (!Charset.defaultCharset().name().equals("UTF-8")) {
+            System.out.printf("Default charset is %s; run with -Dfile.encoding=UTF-8.\n", Charset.defaultCharset());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Reads every line of a data file. Files starting with a byte order mark are read as UTF-16,
+     * everything else as UTF-8.
+     *
+     * @param filename a text file.
+     * @return the lines of the file, or an empty list if it cannot be read.
+     */
+    public static List<String> readLines(String filename) {
+        ArrayList<String> lines = new ArrayList<String>();
+        try {
+            BufferedInputStream in = new BufferedInputStream(new FileInputStream(filename));
+            in.mark(2);
+            int first = in.read();
+            int second = in.read();
+            in.reset();
+            boolean utf16 = (first == 0xFF && second == 0xFE) || (first == 0xFE && second == 0xFF);
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, utf16 ? "UTF-16" : "UTF-8"));
+            String currline;
+            while ((currline = reader.readLine()) != null) {
+                lines.add(currline);
+            }
+            reader.close();
+        } catch (IOException e) {
+            System.out.printf("Error in reading file %s\n", filename);
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    /**
+     * Writes lines to a temporary file that is deleted when the program exits.
+     *
+     * @param lines The lines to write.
+     * @param charset The encoding to write them in.
+     * @return the path of the temporary file.
+     */
+    public static String writeTemp(List<String> lines, String charset) {
+        try {
+            File temp = File.createTempFile("lmdata", ".txt");
+            temp.deleteOnExit();
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), charset));
+            writer.write(String.join("\n", lines));
+            writer.close();
+            return temp.getPath();
+        } catch (IOException e) {
+            System.out.println("Error in writing temporary file.");
+            e.printStackTrace();
+        }
+        return "";
+    }
+}
@@ -0,0 +1,25 @@
+package nlp.lm;
+import java.util.ArrayList;
+
+/**
+ * A language model that can score sentences.
+ */
+public interface LMModel {
+
+    /**
+	 * Given a sentence, return the log of the probability of the sentence based on the LM.
+	 * 
+	 * @param sentWords the words in the sentence.  sentWords should NOT contain <s> or </s>.
+	 * @return the log probability
+	 */
+    public double logProb(ArrayList<String> sentWords);
+
+    /**
+	 * Given a text file, calculate the perplexity of the text file, that is the negative average per word log
+	 * probability
+	 * 
+	 * @param filename a text file.  The file will contain sentences WITHOUT <s> or </s>.
+	 * @return the perplexity of the text in file based on the LM
+	 */
+    public double getPerplexity(String filename);
+}
@@ -235,6 +235,29 @@ public class LambdaLMModel {
         }
     }
 
+    /**
+	 * Returns this model as an LMModel that always scores with the given n-gram order.
+	 * 
+	 * @param gram 1, 2, or 3.
+	 * @return an LMModel backed by this model
+	 */
+    public LMModel atGram(int gram) {
+        if (gram != 1 && gram != 2 && gram != 3) {
+            throw new IllegalArgumentException("atGram takes 1, 2, or 3.");
+        }
+
+        LambdaLMModel model = this;
+        return new LMModel() {
+            public double logProb(ArrayList<String> sentWords) {
+                return model.logProb(sentWords, gram);
+            }
+
+            public double getPerplexity(String filename) {
+                return model.getPerplexity(filename, gram);
+            }
+        };
+    }
+
     /**
 	 * Returns the unigram table of probabilities.
 	 */
@@ -0,0 +1,340 @@
+package nlp.lm;
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+
+/**
+ * Trains both language models on the bundled data sets, checks their log probabilities and perplexities
+ * against golden values, and writes one machine-readable (JSON lines) report entry per run with the
+ * throughput and peak heap of that run. The toy set is too small to time, so only its values are checked.
+ *
+ * Each model gets its training data, and getPerplexity() its test sentences, through DataFiles copies in
+ * the encoding that model reads.
+ *
+ * Usage: java -Dfile.encoding=UTF-8 nlp.lm.RegressionHarness [dataDir] [reportFile]
+ * The process exits with status 1 if any value drifts from its golden value, and with status 2 if a data
+ * file is missing or empty.
+ */
+public class RegressionHarness {
+
+    ///////////////////
+    /* GOLDEN VALUES */
+    ///////////////////
+    // Relative tolerance when comparing against golden values. Loose enough to allow a change in
+    // floating point summation order, tight enough to catch any change to the model itself.
+    private static final double TOLERANCE = 1e-9;
+
+    // Untimed passes over the test set before timing, and timed passes whose median is reported.
+    private static final int WARMUP_PASSES = 2;
+    private static final int TIMED_PASSES = 5;
+
+    // Discount used for every DiscountLMModel run.
+    private static final double DISCOUNT = 0.5;
+
+    // Toy set: trained on test1 with test_vocab, evaluated on test2. Lambda 0.1 as in test1_info.txt.
+    // Log probabilities are summed over the whole test file. Indexed by n-gram order - 1.
+    private static final double TOY_LAMBDA = 0.1;
+    private static final double[] TOY_LAMBDA_LOGPROB = {-6.531635030619837, -4.155531890433306, -5.366377937326648};
+    private static final double[] TOY_LAMBDA_PERPLEXITY = {5.317863990341278, 3.307055521844445, 5.842859182771188};
+    private static final double TOY_DISCOUNT_LOGPROB = -4.755027451536506;
+    private static final double TOY_DISCOUNT_PERPLEXITY = 3.375486562981616;
+
+    // test1_info.txt documents a log probability of -6.08798 and a perplexity of 4.7472 at lambda 0.1, for a
+    // model trained on its processed lines and scored on test2. That perplexity is 10^(6.08798/9): it divides by
+    // all 9 tokens of the processed test sentence, as DiscountLMModel.getPerplexity does, where
+    // LambdaLMModel.getPerplexity divides by its 8 bigrams. No n-gram order of LambdaLMModel trained on those
+    // lines gives -6.08798 (the bigram gives -4.0247), and neither does textbook add-lambda bigram smoothing
+    // (-5.5944). The bigram model scores higher than the textbook because, for an unseen bigram, getProb returns
+    // lambda / (P(first) + lambda * V), dividing by the unigram probability instead of the count. Until the
+    // source of the documented numbers is found they are reported as a known mismatch, not checked.
+    private static final String[] DOC_TRAIN = {"<UNK> a <UNK> b", "a <UNK> a b", "b a b a"};
+    private static final double DOC_LOGPROB = -6.08798;
+    private static final double DOC_PERPLEXITY = 4.7472;
+
+    // Dev set: trained on sentences_dev with sentences_vocab, evaluated on sentences_test. Lambda 0.01 as in Main.
+    private static final double DEV_LAMBDA = 0.01;
+    private static final double[] DEV_LAMBDA_LOGPROB = {-667399.5859284883, -630696.7215199394, -817188.0302610196};
+    private static final double[] DEV_LAMBDA_PERPLEXITY = {401.7611475620461, 372.48907205684753, 3074.469113344573};
+    private static final double DEV_DISCOUNT_LOGPROB = -512143.6361874154;
+    private static final double DEV_DISCOUNT_PERPLEXITY = 99.58905677241884;
+
+    ////////////////////////
+    /* INSTANCE VARIABLES */
+    ////////////////////////
+    // One JSON object per run, in the order the runs were made.
+    private ArrayList<String> report = new ArrayList<String>();
+
+    // Number of runs that did not match their golden values.
+    private int failures = 0;
+
+    ////////////////////
+    /* PUBLIC METHODS */
+    ////////////////////
+    public static void main(String[] args) {
+        String dataDir = args.length > 0 ? args[0] : "data/";
+        if (!dataDir.endsWith("/")) {
+            dataDir += "/";
+        }
+
+        // the numbers are only reproducible if every host reads the UTF-8 copies the same way
+        DataFiles.requireUtf8Platform();
+
+        RegressionHarness harness = new RegressionHarness();
+        harness.compareDocumented(dataDir + "test_vocab", dataDir + "test2");
+        harness.runDataset("test1", dataDir + "test1", dataDir + "test_vocab", dataDir + "test2", TOY_LAMBDA,
+            false, TOY_LAMBDA_LOGPROB, TOY_LAMBDA_PERPLEXITY, TOY_DISCOUNT_LOGPROB, TOY_DISCOUNT_PERPLEXITY);
+        harness.runDataset("sentences_dev", dataDir + "sentences_dev", dataDir + "sentences_vocab",
+            dataDir + "sentences_test", DEV_LAMBDA, true,
+            DEV_LAMBDA_LOGPROB, DEV_LAMBDA_PERPLEXITY, DEV_DISCOUNT_LOGPROB, DEV_DISCOUNT_PERPLEXITY);
+
+        harness.writeReport(args.length > 1 ? args[1] : null);
+        if (harness.failures > 0) {
+            System.out.printf("%d run(s) differ from golden.\n", harness.failures);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Trains both models on one data set and scores them on every n-gram order they support.
+     * DiscountLMModel is bigram only, so it is scored once.
+     *
+     * @param dataset Name of the data set, used in the report.
+     * @param trainFile Training file, in any encoding DataFiles.readLines() understands.
+     * @param vocabFile Vocabulary file, used by LambdaLMModel only.
+     * @param testFile File of test sentences, in any encoding DataFiles.readLines() understands.
+     * @param lambda Lambda to train LambdaLMModel with.
+     * @param timed Whether to measure throughput. Not worth doing for a data set too small to time.
+     */
+    public void runDataset(String dataset, String trainFile, String vocabFile, String testFile, double lambda,
+            boolean timed, double[] lambdaLogProb, double[] lambdaPerplexity,
+            double discountLogProb, double discountPerplexity) {
+        List<String> trainLines = requireLines(trainFile);
+        List<String> testLines = requireLines(testFile);
+        requireLines(vocabFile);
+        // getPerplexity() reads with the platform charset, which main() has checked is UTF-8
+        String testCopy = DataFiles.writeTemp(testLines, "UTF-8");
+
+        ArrayList<ArrayList<String>> testSentences = new ArrayList<ArrayList<String>>();
+        long tokens = 0;
+        for (String line : testLines) {
+            ArrayList<String> sentence = new ArrayList<>();
+            sentence.addAll(Arrays.asList(line.split(" ")));
+            testSentences.add(sentence);
+            tokens += sentence.size();
+        }
+
+        // LambdaLMModel, 1/2/3-gram
+        String lambdaTrain = DataFiles.writeTemp(trainLines, "UTF-16");
+        HeapSampler heap = new HeapSampler();
+        long start = System.nanoTime();
+        LambdaLMModel lambdaModel = new LambdaLMModel(lambdaTrain, vocabFile, lambda);
+        long buildNanos = System.nanoTime() - start;
+        long buildPeak = heap.finish();
+
+        for (int gram = 1; gram <= 3; gram++) {
+            // one lookup per n-gram in the sentence, including <s> and </s>
+            long lookups = tokens + (3 - gram) * testSentences.size();
+            runModel(dataset, "LambdaLMModel", gram, lambdaModel.atGram(gram), testSentences, testCopy, timed,
+                lambdaLogProb[gram - 1], lambdaPerplexity[gram - 1], buildNanos, buildPeak, tokens, lookups);
+        }
+        lambdaModel = null;
+
+        // DiscountLMModel, bigram
+        String discountTrain = DataFiles.writeTemp(trainLines, "UTF-8");
+        heap = new HeapSampler();
+        start = System.nanoTime();
+        DiscountLMModel discountModel = new DiscountLMModel(discountTrain, DISCOUNT);
+        buildNanos = System.nanoTime() - start;
+        buildPeak = heap.finish();
+
+        long lookups = tokens + testSentences.size();
+        runModel(dataset, "DiscountLMModel", 2, discountModel, testSentences, testCopy, timed,
+            discountLogProb, discountPerplexity, buildNanos, buildPeak, tokens, lookups);
+    }
+
+    /**
+     * Trains LambdaLMModel on the processed lines in test1_info.txt and reports its bigram log probability and
+     * perplexity on test2 next to the documented values. Not counted as a failure; see DOC_TRAIN.
+     *
+     * @param vocabFile test_vocab.
+     * @param testFile test2.
+     */
+    public void compareDocumented(String vocabFile, String testFile) {
+        requireLines(vocabFile);
+        List<String> testLines = requireLines(testFile);
+        String testCopy = DataFiles.writeTemp(testLines, "UTF-8");
+        LambdaLMModel lambdaModel = new LambdaLMModel(DataFiles.writeTemp(Arrays.asList(DOC_TRAIN), "UTF-16"),
+            vocabFile, TOY_LAMBDA);
+
+        double logProb = 0;
+        for (String line : testLines) {
+            ArrayList<String> sentence = new ArrayList<>();
+            sentence.addAll(Arrays.asList(line.split(" ")));
+            logProb += lambdaModel.logProb(sentence, 2);
+        }
+        double perplexity = lambdaModel.getPerplexity(testCopy, 2);
+
+        // the documented values are given to 6 and 5 significant digits
+        boolean documented = Math.abs(logProb - DOC_LOGPROB) < 5e-6 && Math.abs(perplexity - DOC_PERPLEXITY) < 5e-5;
+        report.add(String.format(Locale.ROOT,
+            "{\"dataset\":\"test1_info\",\"model\":\"LambdaLMModel\",\"gram\":2,\"logProb\":%s,"
+            + "\"documentedLogProb\":%s,\"perplexity\":%s,\"documentedPerplexity\":%s,\"matchesDocumented\":%b}",
+            Double.toString(logProb), Double.toString(DOC_LOGPROB), Double.toString(perplexity),
+            Double.toString(DOC_PERPLEXITY), documented));
+    }
+
+    /**
+     * Writes the report to a file, or to standard out if no file is given.
+     *
+     * @param toWrite Filepath of file to write, or null. Will overwrite if it already exists.
+     */
+    public void writeReport(String toWrite) {
+        String joined = String.join("\n", report) + "\n";
+        if (toWrite == null) {
+            System.out.print(joined);
+            return;
+        }
+
+        try {
+            FileWriter myWriter = new FileWriter(toWrite);
+            myWriter.write(joined);
+            myWriter.close();
+        } catch (IOException e) {
+            System.out.printf("Error in writing to file %s\n", toWrite);
+            e.printStackTrace();
+        }
+    }
+
+    ////////////////////
+    /* HELPER METHODS */
+    ////////////////////
+
+    /**
+     * Checks one trained model against its golden values, times it if asked to, and adds it to the report.
+     * The log probability is summed over the test sentences with logProb(), and the perplexity comes from
+     * the model's own getPerplexity(), so both paths are pinned.
+     *
+     * When timed, the sentences are scored WARMUP_PASSES times untimed so the JIT has compiled the scoring
+     * path, then TIMED_PASSES times, and the median pass is reported. Peak heap only covers the timed passes.
+     * Peak heaps are the largest heap in use seen by a HeapSampler, so a spike shorter than its sampling
+     * interval can be missed.
+     */
+    private void runModel(String dataset, String modelName, int gram, LMModel model,
+            ArrayList<ArrayList<String>> sentences, String testCopy, boolean timed,
+            double goldenLogProb, double goldenPerplexity, long buildNanos, long buildPeak,
+            long tokens, long lookups) {
+        double logProb = scoreAll(model, sentences);
+        double perplexity = model.getPerplexity(testCopy);
+        boolean pass = matches(logProb, goldenLogProb) && matches(perplexity, goldenPerplexity);
+        if (!pass) {
+            failures++;
+        }
+
+        String timing = "\"timed\":false,\"buildMs\":null,\"scoreMs\":null,\"tokensPerSec\":null,"
+            + "\"lookupsPerSec\":null,\"peakHeapBytes\":null";
+        if (timed) {
+            for (int i = 0; i < WARMUP_PASSES; i++) {
+                scoreAll(model, sentences);
+            }
+
+            HeapSampler heap = new HeapSampler();
+            long[] passNanos = new long[TIMED_PASSES];
+            for (int i = 0; i < TIMED_PASSES; i++) {
+                long start = System.nanoTime();
+                scoreAll(model, sentences);
+                passNanos[i] = System.nanoTime() - start;
+            }
+            long peak = heap.finish();
+            Arrays.sort(passNanos);
+            double scoreSeconds = passNanos[TIMED_PASSES / 2] / 1e9;
+
+            timing = String.format(Locale.ROOT,
+                "\"timed\":true,\"buildMs\":%.3f,\"scoreMs\":%.3f,\"tokensPerSec\":%.1f,"
+                + "\"lookupsPerSec\":%.1f,\"peakHeapBytes\":%d",
+                buildNanos / 1e6, scoreSeconds * 1e3, tokens / scoreSeconds, lookups / scoreSeconds, peak);
+        }
+
+        report.add(String.format(Locale.ROOT,
+            "{\"dataset\":\"%s\",\"model\":\"%s\",\"gram\":%d,\"logProb\":%s,\"goldenLogProb\":%s,"
+            + "\"perplexity\":%s,\"goldenPerplexity\":%s,\"pass\":%b,\"tokens\":%d,\"lookups\":%d,"
+            + "\"buildPeakHeapBytes\":%d,%s}",
+            dataset, modelName, gram, Double.toString(logProb), Double.toString(goldenLogProb),
+            Double.toString(perplexity), Double.toString(goldenPerplexity), pass, tokens, lookups,
+            buildPeak, timing));
+    }
+
+    /**
+     * Returns the sum of the log probabilities of every sentence.
+     */
+    private static double scoreAll(LMModel model, ArrayList<ArrayList<String>> sentences) {
+        double logSum = 0;
+        for (ArrayList<String> sentence : sentences) {
+            logSum += model.logProb(sentence);
+        }
+        return logSum;
+    }
+
+    /**
+     * Returns whether a value is within the relative tolerance of its golden value.
+     */
+    private static boolean matches(double actual, double golden) {
+        return Math.abs(actual - golden) <= TOLERANCE * Math.max(1.0, Math.abs(golden));
+    }
+
+    /**
+     * Reads every line of a data file, exiting if it has none, so a wrong dataDir is not mistaken for a
+     * change to the models.
+     */
+    private static List<String> requireLines(String filename) {
+        List<String> lines = DataFiles.readLines(filename);
+        if (lines.isEmpty()) {
+            System.out.printf("No data in %s; check dataDir.\n", filename);
+            System.exit(2);
+        }
+        return lines;
+    }
+
+    /**
+     * Samples the heap in use every millisecond on a background thread, from construction until finish().
+     */
+    private static class HeapSampler extends Thread {
+        private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+        private volatile boolean sampling = true;
+        private long peak;
+
+        /**
+         * Runs the garbage collector, so garbage from earlier runs is not counted, and starts sampling.
+         */
+        HeapSampler() {
+            setDaemon(true);
+            System.gc();
+            peak = MEMORY.getHeapMemoryUsage().getUsed();
+            start();
+        }
+
+        public void run() {
+            while (sampling) {
+                peak = Math.max(peak, MEMORY.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops sampling and returns the largest heap in use that was seen.
+         */
+        long finish() {
+            sampling = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Math.max(peak, MEMORY.getHeapMemoryUsage().getUsed());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package nlp.lm;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Load tests a ScoringServer by opening many connections at once, each on its own virtual thread, and sending
+ * sentences from a data file over and over. Each connection waits for an answer before sending its next
+ * sentence; requests turned away with "ERR busy" are retried up to MAX_RETRIES times, after a pause that
+ * doubles on each retry, and then count as errors. Prints one JSON line with the request rate, latency
+ * percentiles and number of busy answers. Requires Java 21.
+ *
+ * Only answered requests count towards the rate and latencies; errors and failed connections are counted
+ * separately. The sentence file may be UTF-16 (with a byte order mark) or UTF-8.
+ *
+ * Usage: java nlp.lm.ScoringClient port sentenceFile connections requestsPerConnection
+ */
+public class ScoringClient {
+
+    // How long to wait before the first retry of a request the server was too busy to take, and the longest wait.
+    private static final long MIN_BACKOFF_MS = 1;
+    private static final long MAX_BACKOFF_MS = 100;
+
+    // How many times a request turned away with "ERR busy" is retried before it counts as an error.
+    private static final int MAX_RETRIES = 8;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: ScoringClient port sentenceFile connections requestsPerConnection");
+            System.exit(2);
+        }
+
+        int port = Integer.parseInt(args[0]);
+        List<String> sentences = DataFiles.readLines(args[1]);
+        int connectionCount = Integer.parseInt(args[2]);
+        int requestsPerConnection = Integer.parseInt(args[3]);
+        if (sentences.isEmpty()) {
+            System.out.printf("No sentences in %s\n", args[1]);
+            System.exit(2);
+        }
+
+        // latencies of requests that were answered, filled in the order they finished
+        long[] latencies = new long[connectionCount * requestsPerConnection];
+        AtomicInteger completed = new AtomicInteger();
+        AtomicLong busy = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < connectionCount; c++) {
+                int connection = c;
+                executor.submit(() -> {
+                    try {
+                        run(port, sentences, connection, requestsPerConnection, latencies, completed, busy, errors);
+                    } catch (IOException | InterruptedException e) {
+                        System.out.printf("Connection %d failed: %s\n", connection, e);
+                        errors.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        int done = completed.get();
+        if (done == 0) {
+            System.out.printf("No requests completed; %d error(s).\n", errors.get());
+            System.exit(1);
+        }
+
+        long[] answered = Arrays.copyOf(latencies, done);
+        Arrays.sort(answered);
+        System.out.printf(Locale.ROOT,
+            "{\"connections\":%d,\"requests\":%d,\"elapsedMs\":%.3f,\"requestsPerSec\":%.1f,"
+            + "\"p50Us\":%.1f,\"p99Us\":%.1f,\"maxUs\":%.1f,\"busy\":%d,\"errors\":%d}\n",
+            connectionCount, done, elapsedNanos / 1e6, done / (elapsedNanos / 1e9),
+            percentile(answered, 0.50) / 1e3, percentile(answered, 0.99) / 1e3,
+            answered[done - 1] / 1e3, busy.get(), errors.get());
+    }
+
+    /**
+     * Sends requests on one connection, recording how long each answered one took, retries included.
+     * Requests answered with an error count as errors, not as completed. Stops if the server closes the
+     * connection.
+     *
+     * @param connection Index of this connection, used to pick which sentences it sends.
+     * @param completed Number of latencies recorded so far, across all connections.
+     */
+    private static void run(int port, List<String> sentences, int connection, int requests, long[] latencies,
+            AtomicInteger completed, AtomicLong busy, AtomicLong errors) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < requests; i++) {
+                String sentence = sentences.get((connection * requests + i) % sentences.size());
+                long start = System.nanoTime();
+                String response;
+                long backoff = MIN_BACKOFF_MS;
+                for (int retries = 0; ; retries++) {
+                    writer.write(sentence);
+                    writer.write('\n');
+                    writer.flush();
+                    response = reader.readLine();
+                    if (!"ERR busy".equals(response)) {
+                        break;
+                    }
+                    busy.incrementAndGet();
+                    if (retries == MAX_RETRIES) {
+                        break;
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                }
+                long latency = System.nanoTime() - start;
+
+                if (response == null) {
+                    System.out.printf("Connection %d closed by server.\n", connection);
+                    errors.incrementAndGet();
+                    return;
+                } else if (response.startsWith("ERR")) {
+                    errors.incrementAndGet();
+                } else {
+                    latencies[completed.getAndIncrement()] = latency;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value at the given fraction of a sorted array.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+    }
+}
@@ -0,0 +1,284 @@
+package nlp.lm;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local scoring service that shares one loaded model between many clients. Requires Java 21.
+ *
+ * The protocol is plain UTF-8 lines over a socket: the client sends one sentence per line (words separated by
+ * spaces, WITHOUT <s> or </s>) and the server answers each line, in order, with the log probability of that
+ * sentence, or with a line starting with "ERR" if it could not be scored. Each connection is handled on its
+ * own virtual thread.
+ *
+ * Requests from all connections go through one bounded queue to a few scoring threads, each of which drains it
+ * in batches, scoring identical sentences in a batch only once. When the queue stays full for longer than a short wait, the request is answered with
+ * "ERR busy" instead of waiting any longer, so clients can back off.
+ *
+ * Training and vocabulary files may be UTF-16 (with a byte order mark) or UTF-8; each model is given a copy
+ * in the encoding it reads, see DataFiles.
+ *
+ * Usage: java -Dfile.encoding=UTF-8 nlp.lm.ScoringServer port lambda trainFile vocabFile lambda gram [queueSize [scorers]]
+ *        java -Dfile.encoding=UTF-8 nlp.lm.ScoringServer port discount trainFile discount [queueSize [scorers]]
+ * gram is 1, 2, or 3. queueSize defaults to 4096 and scorers to the number of processors.
+ */
+public class ScoringServer implements Closeable {
+
+    ////////////////////////
+    /* INSTANCE VARIABLES */
+    ////////////////////////
+    // The most requests scored in one batch.
+    private static final int MAX_BATCH = 256;
+
+    // Connections the OS may hold before accept(). Kept apart from the request queue, so overload is signalled
+    // with "ERR busy" rather than refused connections.
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // Requests that may wait to be scored, unless given on the command line.
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    // How long a connection waits for room in a full queue before answering "ERR busy".
+    private static final long OFFER_TIMEOUT_MS = 50;
+
+    // Requests waiting to be scored. Bounded, so a full queue means the server is overloaded.
+    private final ArrayBlockingQueue<Request> queue;
+
+    private final LMModel model;
+    private final ServerSocket serverSocket;
+
+    // Runs one virtual thread per connection.
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ArrayList<Thread> scorers = new ArrayList<Thread>();
+    private volatile boolean running = true;
+
+    ////////////////////
+    /* PUBLIC METHODS */
+    ////////////////////
+
+    /**
+     * Starts a server on the given port. Connections are not accepted until serve() is called.
+     *
+     * @param model The model to score with. Both models only read their tables once trained, so it is shared
+     *              between the scoring threads.
+     * @param port Port to listen on, or 0 for any free port.
+     * @param queueSize How many requests may wait to be scored before new ones are turned away.
+     * @param scorerCount How many scoring threads to run.
+     */
+    public ScoringServer(LMModel model, int port, int queueSize, int scorerCount) throws IOException {
+        this.model = model;
+        this.queue = new ArrayBlockingQueue<Request>(queueSize);
+        this.serverSocket = new ServerSocket(port, ACCEPT_BACKLOG, InetAddress.getLoopbackAddress());
+        for (int i = 0; i < scorerCount; i++) {
+            Thread scorer = new Thread(this::scoreBatches, "lm-scorer-" + i);
+            scorer.setDaemon(true);
+            scorer.start();
+            scorers.add(scorer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // DiscountLMModel and readVocab() read the copies made below with the platform charset
+        DataFiles.requireUtf8Platform();
+        if (args.length < 2) {
+            usage();
+        }
+
+        int port = Integer.parseInt(args[0]);
+        LMModel model;
+        int next; // index of the first optional argument
+        if (args[1].equals("lambda")) {
+            if (args.length < 6) {
+                usage();
+            }
+            int gram = Integer.parseInt(args[5]);
+            if (gram != 1 && gram != 2 && gram != 3) {
+                usage();
+            }
+            LambdaLMModel lambdaModel = new LambdaLMModel(trainingCopy(args[2], "UTF-16"),
+                DataFiles.writeTemp(DataFiles.readLines(args[3]), "UTF-8"), Double.parseDouble(args[4]));
+            model = lambdaModel.atGram(gram);
+            next = 6;
+        } else if (args[1].equals("discount")) {
+            if (args.length < 4) {
+                usage();
+            }
+            model = new DiscountLMModel(trainingCopy(args[2], "UTF-8"), Double.parseDouble(args[3]));
+            next = 4;
+        } else {
+            usage();
+            return;
+        }
+
+        if (args.length > next + 2) {
+            usage();
+        }
+        int queueSize = args.length > next ? Integer.parseInt(args[next]) : DEFAULT_QUEUE_SIZE;
+        int scorerCount = args.length > next + 1
+            ? Integer.parseInt(args[next + 1]) : Runtime.getRuntime().availableProcessors();
+
+        ScoringServer server = new ScoringServer(model, port, queueSize, scorerCount);
+        System.out.printf("Scoring on port %d\n", server.getPort());
+        server.serve();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, handing each one to its own virtual thread.
+     */
+    public void serve() throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // thrown by accept() once close() has been called
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            connections.submit(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the ones already open.
+     */
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+        for (Thread scorer : scorers) {
+            scorer.interrupt();
+        }
+    }
+
+    ////////////////////
+    /* HELPER METHODS */
+    ////////////////////
+
+    /**
+     * Prints how to run the server and exits.
+     */
+    private static void usage() {
+        System.out.println("Usage: ScoringServer port lambda trainFile vocabFile lambda gram [queueSize [scorers]]");
+        System.out.println("       ScoringServer port discount trainFile discount [queueSize [scorers]]");
+        System.exit(2);
+    }
+
+    /**
+     * Copies a training file into the encoding a model reads it with, exiting if it has no data.
+     *
+     * @param filename The training file, UTF-16 or UTF-8.
+     * @param charset The encoding the model reads.
+     * @return the path of the copy.
+     */
+    private static String trainingCopy(String filename, String charset) {
+        List<String> lines = DataFiles.readLines(filename);
+        if (lines.isEmpty()) {
+            System.out.printf("No training data in %s\n", filename);
+            System.exit(2);
+        }
+        return DataFiles.writeTemp(lines, charset);
+    }
+
+    /**
+     * Answers every line sent on one connection, in order, until the client disconnects.
+     *
+     * @param socket The client connection.
+     */
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String currline;
+            while ((currline = reader.readLine()) != null) {
+                writer.write(score(currline));
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // the client went away; nothing to answer
+        }
+    }
+
+    /**
+     * Queues one sentence to be scored and waits for the result.
+     *
+     * @param line The sentence, with words separated by spaces.
+     * @return the response line: the log probability, or an error.
+     */
+    private String score(String line) {
+        ArrayList<String> sentence = new ArrayList<>();
+        sentence.addAll(Arrays.asList(line.trim().split(" ")));
+        Request request = new Request(sentence);
+
+        try {
+            if (!queue.offer(request, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return "ERR busy";
+            }
+            return Double.toString(request.result.get());
+        } catch (ExecutionException e) {
+            return "ERR " + e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERR shutting down";
+        }
+    }
+
+    /**
+     * Runs on each scoring thread. Takes everything waiting in the queue (up to MAX_BATCH) and scores it,
+     * scoring each distinct sentence in the batch only once.
+     */
+    private void scoreBatches() {
+        ArrayList<Request> batch = new ArrayList<Request>(MAX_BATCH);
+        HashMap<ArrayList<String>, Double> scored = new HashMap<ArrayList<String>, Double>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            for (Request request : batch) {
+                Double logProb = scored.get(request.sentence);
+                if (logProb == null) {
+                    try {
+                        logProb = model.logProb(request.sentence);
+                    } catch (RuntimeException e) {
+                        request.result.completeExceptionally(e);
+                        continue;
+                    }
+                    scored.put(request.sentence, logProb);
+                }
+                request.result.complete(logProb);
+            }
+            batch.clear();
+            scored.clear();
+        }
+    }
+
+    /**
+     * One sentence waiting to be scored, and where to put its log probability.
+     */
+    private static class Request {
+        final ArrayList<String> sentence;
+        final CompletableFuture<Double> result = new CompletableFuture<Double>();
+
+        Request(ArrayList<String> sentence) {
+            this.sentence = sentence;
+        }
+    }
+}